@@ -0,0 +1,375 @@
+package com.navigamez.greex;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs match generation on an {@link Executor} in fixed-size chunks. Each request only ever has
+ * one chunk queued or running at a time, and re-submits itself to the executor after every chunk,
+ * so a large request can't hold on to an executor thread while smaller requests wait behind it.
+ * <p>
+ * Requests that return their matches in a collection hold every match until they complete.
+ * Requests with a {@link GreexSink} hand each chunk to the sink before generating the next one,
+ * so they hold at most one chunk of matches at a time.
+ */
+class GreexAsyncGenerator {
+
+    static Future<List<String>> generateRandom(final GreexGenerator generator,
+                                               Executor executor,
+                                               int chunkSize,
+                                               final Random random,
+                                               final int count,
+                                               boolean unique,
+                                               long timeout,
+                                               TimeUnit timeoutUnit) {
+        int initialCapacity = Math.max(0, Math.min(count, chunkSize));
+        final Collection<String> results = unique ? new HashSet<String>(initialCapacity) : new ArrayList<String>(initialCapacity);
+        final long stop;
+        if (timeout <= 0 || timeoutUnit == null) {
+            stop = -1;
+        } else {
+            stop = timeoutUnit.toMillis(timeout) + System.currentTimeMillis();
+        }
+        ChunkedTask<List<String>> task = new ChunkedTask<List<String>>(executor, chunkSize) {
+            @Override
+            protected boolean runChunk(int chunkSize) {
+                for (int i = 0; i < chunkSize && results.size() < count; i++) {
+                    if (stop > 0 && stop < System.currentTimeMillis()) {
+                        return false;
+                    }
+                    results.add(generator.generateRandom(random));
+                }
+                return results.size() < count;
+            }
+
+            @Override
+            protected List<String> result() {
+                return new ArrayList<String>(results);
+            }
+        };
+        task.start();
+        return task;
+    }
+
+    static Future<Set<String>> generateAll(Automaton automaton,
+                                           Executor executor,
+                                           int chunkSize,
+                                           int maxLength,
+                                           int maxCount) {
+        final Set<String> strings = new HashSet<String>();
+        final AllCursor cursor = new AllCursor(automaton, maxLength, maxCount, strings);
+        ChunkedTask<Set<String>> task = new ChunkedTask<Set<String>>(executor, chunkSize) {
+            @Override
+            protected boolean runChunk(int chunkSize) {
+                return cursor.advance(chunkSize);
+            }
+
+            @Override
+            protected Set<String> result() {
+                return strings;
+            }
+        };
+        task.start();
+        return task;
+    }
+
+    static Future<Integer> generateRandom(final GreexGenerator generator,
+                                          Executor executor,
+                                          int chunkSize,
+                                          final Random random,
+                                          final int count,
+                                          final GreexSink sink) {
+        ChunkedTask<Integer> task = new ChunkedTask<Integer>(executor, chunkSize) {
+            private int generated;
+
+            @Override
+            protected boolean runChunk(int chunkSize) {
+                List<String> matches = new ArrayList<String>(Math.min(chunkSize, count - generated));
+                while (matches.size() < chunkSize && generated < count) {
+                    matches.add(generator.generateRandom(random));
+                    generated++;
+                }
+                if (!matches.isEmpty()) {
+                    sink.accept(matches);
+                }
+                return generated < count;
+            }
+
+            @Override
+            protected Integer result() {
+                return generated;
+            }
+        };
+        task.start();
+        return task;
+    }
+
+    static Future<Integer> generateAll(Automaton automaton,
+                                       Executor executor,
+                                       int chunkSize,
+                                       int maxLength,
+                                       int maxCount,
+                                       final GreexSink sink) {
+        final AllCursor cursor = new AllCursor(automaton, maxLength, maxCount, new ArrayList<String>());
+        ChunkedTask<Integer> task = new ChunkedTask<Integer>(executor, chunkSize) {
+            @Override
+            protected boolean runChunk(int chunkSize) {
+                boolean more = cursor.advance(chunkSize);
+                if (!cursor.strings.isEmpty()) {
+                    // Each step finds at most one match, so this is at most one chunk
+                    List<String> matches = new ArrayList<String>(cursor.strings);
+                    cursor.strings.clear();
+                    sink.accept(matches);
+                }
+                return more;
+            }
+
+            @Override
+            protected Integer result() {
+                return cursor.count;
+            }
+        };
+        task.start();
+        return task;
+    }
+
+    /**
+     * Returns the shared executor used when a generator isn't given one. On runtimes that support
+     * virtual threads, this is a virtual-thread-per-task executor; otherwise it is a cached pool of
+     * daemon threads.
+     */
+    static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    private static class DefaultExecutorHolder {
+
+        static final Executor EXECUTOR = createDefaultExecutor();
+
+        private static Executor createDefaultExecutor() {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) method.invoke(null);
+            } catch (Exception e) {
+                // Virtual threads aren't available on this runtime
+            }
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                private final ThreadFactory delegate = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = delegate.newThread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * A {@link Future} that completes by running {@link #runChunk(int)} on the executor until it
+     * reports that there is no more work. Each chunk is submitted only after the previous one has
+     * finished, so the executor's happens-before guarantee covers the state shared between chunks.
+     */
+    abstract static class ChunkedTask<T> implements Future<T>, Runnable {
+
+        private final Executor executor;
+        private final int chunkSize;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean cancelled;
+        private T result;
+        private Throwable failure;
+
+        ChunkedTask(Executor executor, int chunkSize) {
+            this.executor = executor;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Does up to {@code chunkSize} units of work.
+         *
+         * @return {@code true} if there is more work to do
+         */
+        protected abstract boolean runChunk(int chunkSize);
+
+        protected abstract T result();
+
+        void start() {
+            submit();
+        }
+
+        @Override
+        public final void run() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                if (runChunk(chunkSize)) {
+                    submit();
+                } else {
+                    complete(result(), null);
+                }
+            } catch (Throwable t) {
+                complete(null, t);
+            }
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                complete(null, e);
+            }
+        }
+
+        private synchronized void complete(T result, Throwable failure) {
+            if (isDone()) {
+                return;
+            }
+            this.result = result;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()) {
+                return false;
+            }
+            cancelled = true;
+            done.countDown();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return report();
+        }
+
+        private synchronized T report() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * An iterative version of {@link GreexAllGenerator} that can be paused after any number of
+     * steps, where a step is visiting or leaving a state. It visits states and characters in the
+     * same order, so it produces the same set of matches for the same limits. The automaton is
+     * deterministic, so every path leads to a different match and no match is found twice.
+     */
+    static class AllCursor {
+
+        final Collection<String> strings;
+        int count;
+        private final int maxLength;
+        private final int maxCount;
+        private final Deque<Frame> stack = new ArrayDeque<Frame>();
+        private final StringBuilder currentChoices = new StringBuilder();
+        private boolean finished;
+
+        /**
+         * @param strings the collection that found matches are added to
+         */
+        AllCursor(Automaton automaton, int maxLength, int maxCount, Collection<String> strings) {
+            this.strings = strings;
+            this.maxLength = maxLength;
+            this.maxCount = maxCount;
+            enter(automaton.getInitialState());
+        }
+
+        /**
+         * Continues the search for up to the given number of steps.
+         *
+         * @return {@code true} if there may be more matches
+         */
+        boolean advance(int steps) {
+            for (int step = 0; step < steps && !finished && !stack.isEmpty(); step++) {
+                Frame frame = stack.peek();
+                if (frame.transition >= frame.transitions.size()) {
+                    stack.pop();
+                    if (!stack.isEmpty()) {
+                        currentChoices.setLength(currentChoices.length() - 1);
+                    }
+                    continue;
+                }
+                Transition transition = frame.transitions.get(frame.transition);
+                char c = (char) frame.next;
+                if (frame.next >= transition.getMax()) {
+                    frame.transition++;
+                    if (frame.transition < frame.transitions.size()) {
+                        frame.next = frame.transitions.get(frame.transition).getMin();
+                    }
+                } else {
+                    frame.next++;
+                }
+                currentChoices.append(c);
+                if (!enter(transition.getDest())) {
+                    currentChoices.setLength(currentChoices.length() - 1);
+                }
+            }
+            return !finished && !stack.isEmpty();
+        }
+
+        /**
+         * @return {@code true} if a frame was pushed for the state
+         */
+        private boolean enter(State state) {
+            if (count >= maxCount) {
+                finished = true;
+                return false;
+            }
+            List<Transition> transitions = state.getSortedTransitions(false);
+            if (state.isAccept()) {
+                strings.add(currentChoices.toString());
+                count++;
+            }
+            if (currentChoices.length() >= maxLength) {
+                return false;
+            }
+            stack.push(new Frame(transitions));
+            return true;
+        }
+
+        private static class Frame {
+
+            final List<Transition> transitions;
+            int transition;
+            int next;
+
+            Frame(List<Transition> transitions) {
+                this.transitions = transitions;
+                this.next = transitions.isEmpty() ? 0 : transitions.get(0).getMin();
+            }
+        }
+    }
+}
@@ -4,6 +4,8 @@ import dk.brics.automaton.Automaton;
 import dk.brics.automaton.RegExp;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,6 +41,28 @@ import java.util.concurrent.TimeUnit;
  * you will get a {@link StackOverflowError} or {@link OutOfMemoryError}. The max length defaults to
  * {@link Integer#MAX_VALUE} when not provided, which is fine for finite regular expressions.
  * <p>
+ * <b>Weighted Generation</b>
+ * <p>
+ * By default, random generation treats stopping and each way of continuing a match as equally
+ * likely. To control the distribution of characters and the length of matches instead, use
+ * {@link #withWeights(GreexWeights)} to create a generator with {@link GreexWeights}.
+ * <p>
+ * <b>Asynchronous Generation</b>
+ * <p>
+ * The {@code generateRandomAsync} and {@code generateAllAsync} methods return a {@link Future}
+ * and do their work on an {@link Executor}, which can be given to
+ * {@link #GreexGenerator(String, Executor, int)}. By default, a shared executor is used that runs
+ * on virtual threads when the runtime supports them, or on a cached pool of daemon threads when it
+ * doesn't. Work is split into chunks of at most {@link #DEFAULT_CHUNK_SIZE} random matches or
+ * {@link #DEFAULT_CHUNK_SIZE} steps of the search for all matches, and each request only has one
+ * chunk on the executor at a time, so large requests don't starve small ones. Cancelling the
+ * returned {@link Future} stops generation after the current chunk.
+ * <p>
+ * The variants that return their matches in a collection hold every match in memory until the
+ * {@link Future} completes. To bound memory, use the variants that take a {@link GreexSink}
+ * instead. They hand each chunk of matches to the sink and only generate the next chunk after the
+ * sink returns, so a request holds at most one chunk of matches at a time.
+ * <p>
  * <b>Thread Safety</b>
  * <p>
  * This class is not 100% thread safe. Here is the thread safety profile of each method.
@@ -67,6 +91,18 @@ import java.util.concurrent.TimeUnit;
  * <td>{@link #generateRandom(Random)}</td>
  * <td><i>Sometimes</i> thread safe**</td>
  * </tr>
+ * <tr>
+ * <td>{@link #generateRandomAsync(long, int, boolean)}</td>
+ * <td>Always thread safe</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #generateRandomAsync(Random, int, boolean)}</td>
+ * <td><i>Sometimes</i> thread safe**</td>
+ * </tr>
+ * <tr>
+ * <td>{@link #generateAllAsync(int, int)}</td>
+ * <td>Always thread safe</td>
+ * </tr>
  * </table>
  * <p>
  * * This method uses an internal {@link Random} with no synchronization, and so it is not thread
@@ -79,19 +115,98 @@ import java.util.concurrent.TimeUnit;
  */
 public class GreexGenerator {
 
+    /**
+     * The default maximum number of random matches generated, or steps taken while generating all
+     * matches, by an asynchronous request before it yields the executor to other requests.
+     *
+     * @since 1.2
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
     private final Automaton automaton;
     private final Random random = new Random();
+    private final Executor executor;
+    private final int chunkSize;
+    private final GreexWeightedRandomGenerator weightedGenerator;
 
     /**
-     * Create a new generator using the given regular expression.
+     * Create a new generator using the given regular expression. Asynchronous generation uses the
+     * shared default executor.
      *
      * @param regex the regular expression that will be used for match generation
      */
     public GreexGenerator(String regex) {
+        this(regex, GreexAsyncGenerator.defaultExecutor(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a new generator using the given regular expression and the given {@link Executor} for
+     * asynchronous generation.
+     *
+     * @param regex the regular expression that will be used for match generation
+     * @param executor the {@link Executor} that asynchronous generation will run on
+     * @since 1.2
+     */
+    public GreexGenerator(String regex, Executor executor) {
+        this(regex, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a new generator using the given regular expression, the given {@link Executor} for
+     * asynchronous generation, and the given maximum number of matches per chunk of asynchronous
+     * work.
+     *
+     * @param regex the regular expression that will be used for match generation
+     * @param executor the {@link Executor} that asynchronous generation will run on
+     * @param chunkSize the maximum number of random matches generated, or steps taken while
+     *                  generating all matches, per chunk of asynchronous work
+     * @since 1.2
+     */
+    public GreexGenerator(String regex, Executor executor, int chunkSize) {
         if (regex == null) {
             throw new IllegalArgumentException("regex cannot be null");
         }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
         this.automaton = new RegExp(regex).toAutomaton();
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.weightedGenerator = null;
+    }
+
+    private GreexGenerator(GreexGenerator generator, GreexWeightedRandomGenerator weightedGenerator) {
+        this.automaton = generator.automaton;
+        this.executor = generator.executor;
+        this.chunkSize = generator.chunkSize;
+        this.weightedGenerator = weightedGenerator;
+    }
+
+    /**
+     * Creates a new generator for the same regular expression and executor that uses the given
+     * weights for random generation. The weights are compiled into per-state alias tables once, so
+     * random generation with the new generator is as fast as without weights. Generating all
+     * matches is not affected by weights.
+     * <p>
+     * Random generation with the new generator never takes a transition that can't lead to a match
+     * without using characters that have a weight of 0, so every walk ends in a match.
+     *
+     * @param weights the weights to use for random generation
+     * @return a new generator that uses the given weights
+     * @throws IllegalArgumentException if the weights are {@code null}, or if no match of the
+     *                                  regular expression can be generated without using characters
+     *                                  that have a weight of 0
+     * @see GreexWeights
+     * @since 1.2
+     */
+    public GreexGenerator withWeights(GreexWeights weights) {
+        if (weights == null) {
+            throw new IllegalArgumentException("weights cannot be null");
+        }
+        return new GreexGenerator(this, new GreexWeightedRandomGenerator(automaton, weights));
     }
 
     /**
@@ -193,6 +308,9 @@ public class GreexGenerator {
      * @return a random string that matches the given regular expression
      */
     public String generateRandom(Random random) {
+        if (weightedGenerator != null) {
+            return weightedGenerator.generateRandom(random);
+        }
         return GreexRandomGenerator.generateRandom(this.automaton, random);
     }
 
@@ -292,6 +410,9 @@ public class GreexGenerator {
      * @return a random string that matches the given regular expression
      */
     public List<String> generateRandom(Random random, int count, boolean unique, long timeout, TimeUnit timeoutUnit) throws StackOverflowError {
+        if (count < 0) {
+            throw new IllegalArgumentException("count cannot be negative");
+        }
         Collection<String> results = unique ? new HashSet<String>(count) : new ArrayList<String>(count);
         long stop;
         if (timeout <= 0 || timeoutUnit == null) {
@@ -337,4 +458,209 @@ public class GreexGenerator {
     public List<String> generateRandom(long seed, int count, boolean unique, long timeout, TimeUnit timeoutUnit) throws StackOverflowError {
         return generateRandom(new Random(seed), count, unique, timeout, timeoutUnit);
     }
+
+    /**
+     * Asynchronously generates all the matches for this generator's regular expression where the
+     * length of the generated string is less than the given maximum length up to the given number
+     * of matches. The result is the same as {@link #generateAllLimited(int, int)}.
+     * <p>
+     * Every match is held in memory until the returned {@link Future} completes. To bound memory,
+     * use {@link #generateAllAsync(int, int, GreexSink)} instead.
+     * <p>
+     * This method is always thread safe.
+     *
+     * @param maxCount the maximum number of matches to generate before stopping
+     * @param maxLength the maximum string length for generated matches
+     * @return a {@link Future} for an unordered set of all matches with lengths less than the given
+     *         maximum length
+     * @since 1.2
+     */
+    public Future<Set<String>> generateAllAsync(int maxCount, int maxLength) {
+        return GreexAsyncGenerator.generateAll(automaton, executor, chunkSize, maxLength, maxCount);
+    }
+
+    /**
+     * Asynchronously generates all the matches for this generator's regular expression where the
+     * length of the generated string is less than the given maximum length up to the given number
+     * of matches, and hands them to the given {@link GreexSink} one chunk at a time. The matches
+     * are the same as {@link #generateAllLimited(int, int)}, and each one is handed to the sink
+     * exactly once. At most one chunk of matches is held in memory at a time.
+     * <p>
+     * This method is always thread safe.
+     *
+     * @param maxCount the maximum number of matches to generate before stopping
+     * @param maxLength the maximum string length for generated matches
+     * @param sink the {@link GreexSink} that receives each chunk of matches
+     * @return a {@link Future} for the number of matches handed to the sink
+     * @since 1.2
+     */
+    public Future<Integer> generateAllAsync(int maxCount, int maxLength, GreexSink sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("sink cannot be null");
+        }
+        return GreexAsyncGenerator.generateAll(automaton, executor, chunkSize, maxLength, maxCount, sink);
+    }
+
+    /**
+     * Asynchronously generates multiple, unique random matches for this generator's regular
+     * expression. This creates a new {@link Random} instance using the given {@code seed}, and so
+     * the result is the same as {@link #generateRandom(long, int)}, including throwing an
+     * {@link IllegalArgumentException} for a negative {@code count}.
+     * <p>
+     * When the regular expression has fewer than {@code count} matches, the returned
+     * {@link Future} never completes on its own and must be cancelled. To avoid this issue, use
+     * {@link #generateRandomAsync(long, int, boolean, long, TimeUnit)} instead.
+     * <p>
+     * This method is always thread safe.
+     *
+     * @param seed the seed to use for the {@link Random} instance.
+     * @param count the number of matches to generate
+     * @return a {@link Future} for the random strings that match the given regular expression
+     * @since 1.2
+     */
+    public Future<List<String>> generateRandomAsync(long seed, int count) {
+        return generateRandomAsync(new Random(seed), count, true);
+    }
+
+    /**
+     * Asynchronously generates multiple random matches for this generator's regular expression.
+     * This creates a new {@link Random} instance using the given {@code seed}, and so the result is
+     * the same as {@link #generateRandom(long, int, boolean)}, including throwing an
+     * {@link IllegalArgumentException} for a negative {@code count}.
+     * <p>
+     * When {@code unique} is true and the regular expression has fewer than {@code count} matches,
+     * the returned {@link Future} never completes on its own and must be cancelled. To avoid this
+     * issue, use {@link #generateRandomAsync(Random, int, boolean, long, TimeUnit)} instead.
+     * <p>
+     * This method is always thread safe.
+     *
+     * @param seed the seed to use for the {@link Random} instance.
+     * @param count the number of matches to generate
+     * @param unique {@code true} if the matches must be unique
+     * @return a {@link Future} for the random strings that match the given regular expression
+     * @since 1.2
+     */
+    public Future<List<String>> generateRandomAsync(long seed, int count, boolean unique) {
+        return generateRandomAsync(new Random(seed), count, unique);
+    }
+
+    /**
+     * Asynchronously generates multiple random matches for this generator's regular expression.
+     * This uses the given {@link Random} instance, which must not be used elsewhere until the
+     * returned {@link Future} is done.
+     * <p>
+     * When {@code unique} is true and the regular expression has fewer than {@code count} matches,
+     * the returned {@link Future} never completes on its own and must be cancelled. To avoid this
+     * issue, use {@link #generateRandomAsync(Random, int, boolean, long, TimeUnit)} instead.
+     * <p>
+     * This method is only thread safe if the given {@link Random} is managed in a thread-safe way.
+     *
+     * @param random the {@link Random} to use for generation.
+     * @param count the number of matches to generate
+     * @param unique {@code true} if the matches must be unique
+     * @return a {@link Future} for the random strings that match the given regular expression
+     * @since 1.2
+     */
+    public Future<List<String>> generateRandomAsync(Random random, int count, boolean unique) {
+        return generateRandomAsync(random, count, unique, -1, null);
+    }
+
+    /**
+     * Asynchronously generates multiple random matches for this generator's regular expression.
+     * This creates a new {@link Random} instance using the given {@code seed}, and so the result is
+     * the same as {@link #generateRandom(long, int, boolean, long, TimeUnit)} when it finishes
+     * before the timeout.
+     * <p>
+     * When the timeout is exceeded, the returned {@link Future} completes with the matches that
+     * were generated so far. Like the synchronous variant, this won't fail-fast on the timeout. To
+     * disable timeouts, either pass a non-positive number for {@code timeout} or {@code null} for
+     * {@code timeoutUnit}.
+     * <p>
+     * This method is always thread safe.
+     *
+     * @param seed the seed to use for the {@link Random} instance.
+     * @param count the number of matches to generate
+     * @param unique {@code true} if the matches must be unique
+     * @param timeout the number of {@link TimeUnit}s to generate for before completing, or a number
+     *                &lt;= 0 to disable timeouts
+     * @param timeoutUnit the {@link TimeUnit} for the timeout, or {@code null} to disable timeouts
+     * @return a {@link Future} for the random strings that match the given regular expression
+     * @since 1.2
+     */
+    public Future<List<String>> generateRandomAsync(long seed, int count, boolean unique, long timeout, TimeUnit timeoutUnit) {
+        return generateRandomAsync(new Random(seed), count, unique, timeout, timeoutUnit);
+    }
+
+    /**
+     * Asynchronously generates multiple random matches for this generator's regular expression.
+     * This uses the given {@link Random} instance, which must not be used elsewhere until the
+     * returned {@link Future} is done.
+     * <p>
+     * When the timeout is exceeded, the returned {@link Future} completes with the matches that
+     * were generated so far. Like the synchronous variant, this won't fail-fast on the timeout. To
+     * disable timeouts, either pass a non-positive number for {@code timeout} or {@code null} for
+     * {@code timeoutUnit}.
+     * <p>
+     * This method is only thread safe if the given {@link Random} is managed in a thread-safe way.
+     *
+     * @param random the {@link Random} to use for generation.
+     * @param count the number of matches to generate
+     * @param unique {@code true} if the matches must be unique
+     * @param timeout the number of {@link TimeUnit}s to generate for before completing, or a number
+     *                &lt;= 0 to disable timeouts
+     * @param timeoutUnit the {@link TimeUnit} for the timeout, or {@code null} to disable timeouts
+     * @return a {@link Future} for the random strings that match the given regular expression
+     * @since 1.2
+     */
+    public Future<List<String>> generateRandomAsync(Random random, int count, boolean unique, long timeout, TimeUnit timeoutUnit) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count cannot be negative");
+        }
+        return GreexAsyncGenerator.generateRandom(this, executor, chunkSize, random, count, unique, timeout, timeoutUnit);
+    }
+
+    /**
+     * Asynchronously generates multiple random matches for this generator's regular expression,
+     * and hands them to the given {@link GreexSink} one chunk at a time. This creates a new
+     * {@link Random} instance using the given {@code seed}, and so the matches are the same, in the
+     * same order, as {@link #generateRandom(long, int, boolean)} with {@code unique} set to
+     * {@code false}. At most one chunk of matches is held in memory at a time, so the matches
+     * aren't checked for uniqueness.
+     * <p>
+     * This method is always thread safe.
+     *
+     * @param seed the seed to use for the {@link Random} instance.
+     * @param count the number of matches to generate
+     * @param sink the {@link GreexSink} that receives each chunk of matches
+     * @return a {@link Future} for the number of matches handed to the sink
+     * @since 1.2
+     */
+    public Future<Integer> generateRandomAsync(long seed, int count, GreexSink sink) {
+        return generateRandomAsync(new Random(seed), count, sink);
+    }
+
+    /**
+     * Asynchronously generates multiple random matches for this generator's regular expression,
+     * and hands them to the given {@link GreexSink} one chunk at a time. This uses the given
+     * {@link Random} instance, which must not be used elsewhere until the returned {@link Future}
+     * is done. At most one chunk of matches is held in memory at a time, so the matches aren't
+     * checked for uniqueness.
+     * <p>
+     * This method is only thread safe if the given {@link Random} is managed in a thread-safe way.
+     *
+     * @param random the {@link Random} to use for generation.
+     * @param count the number of matches to generate
+     * @param sink the {@link GreexSink} that receives each chunk of matches
+     * @return a {@link Future} for the number of matches handed to the sink
+     * @since 1.2
+     */
+    public Future<Integer> generateRandomAsync(Random random, int count, GreexSink sink) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count cannot be negative");
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("sink cannot be null");
+        }
+        return GreexAsyncGenerator.generateRandom(this, executor, chunkSize, random, count, sink);
+    }
 }
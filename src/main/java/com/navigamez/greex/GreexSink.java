@@ -0,0 +1,25 @@
+package com.navigamez.greex;
+
+import java.util.List;
+
+/**
+ * Receives matches from asynchronous generation one chunk at a time, so that a request never has
+ * to hold more than one chunk of matches in memory.
+ * <p>
+ * A sink is called on the executor thread that generated the chunk. The next chunk isn't
+ * generated until the sink returns, so a slow sink slows down its own request rather than
+ * buffering matches, and calls for the same request never overlap. If the sink throws an
+ * exception, generation stops and the request's {@link java.util.concurrent.Future} fails with it.
+ *
+ * @author Brian Saltz
+ * @since 1.2
+ */
+public interface GreexSink {
+
+    /**
+     * Accepts the next chunk of matches.
+     *
+     * @param matches the matches in the chunk, which the sink may keep
+     */
+    void accept(List<String> matches);
+}
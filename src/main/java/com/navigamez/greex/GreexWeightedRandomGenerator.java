@@ -0,0 +1,398 @@
+package com.navigamez.greex;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+
+import java.util.*;
+
+/**
+ * Generates random matches by walking a copy of the {@link Automaton} where every state has an
+ * alias table for choosing between stopping and each of its transitions, and every transition has
+ * an alias table for choosing between its ranges of equally weighted characters. Each step is a
+ * constant-time pick, so weights never cause matches to be thrown away.
+ * <p>
+ * Transitions whose characters all have a weight of 0 are left out, and so are transitions into
+ * states that can no longer reach an accepting state without them. This way, every walk ends in a
+ * match.
+ * <p>
+ * For a target mean length, the expected length of a match is computed exactly for the compiled
+ * states, one strongly connected component at a time. It only gets shorter as the stop
+ * probability grows, so the stop probability is found with a binary search.
+ */
+class GreexWeightedRandomGenerator {
+
+    /**
+     * The smallest stop probability used for a target mean length, which keeps the expected
+     * length finite.
+     */
+    private static final double MIN_STOP_PROBABILITY = 1e-9;
+    private static final int SEARCH_ITERATIONS = 64;
+
+    private final WeightedState initialState;
+
+    GreexWeightedRandomGenerator(Automaton automaton, GreexWeights weights) {
+        Map<State, List<WeightedTransition>> candidates = new HashMap<State, List<WeightedTransition>>();
+        for (State state : automaton.getStates()) {
+            candidates.put(state, candidateTransitions(state, weights));
+        }
+        Set<State> live = liveStates(candidates);
+        if (!live.contains(automaton.getInitialState())) {
+            throw new IllegalArgumentException("weights exclude every match of the regular expression");
+        }
+        Map<State, WeightedState> states = new HashMap<State, WeightedState>();
+        List<WeightedState> compiled = new ArrayList<WeightedState>(live.size());
+        for (State state : live) {
+            WeightedState weightedState = new WeightedState(state.isAccept(), compiled.size());
+            states.put(state, weightedState);
+            compiled.add(weightedState);
+        }
+        for (State state : live) {
+            link(states.get(state), candidates.get(state), states, weights);
+        }
+        this.initialState = states.get(automaton.getInitialState());
+        double stopProbability = weights.getStopProbability();
+        if (weights.getTargetMeanLength() >= 0) {
+            stopProbability = solveStopProbability(compiled, initialState.index, weights.getTargetMeanLength());
+        }
+        for (WeightedState state : compiled) {
+            buildOutcomes(state, stopProbability);
+        }
+    }
+
+    String generateRandom(Random random) {
+        StringBuilder builder = new StringBuilder();
+        WeightedState state = initialState;
+        do {
+            if (state.outcomes == null) {
+                // Only accepting states have no way to continue
+                break;
+            }
+            int option = state.outcomes.sample(random);
+            if (state.accept && option == 0) {
+                // 0 is considered "stop"
+                break;
+            }
+            WeightedTransition transition = state.transitions[option - (state.accept ? 1 : 0)];
+            int range = transition.ranges.sample(random);
+            int min = transition.mins[range];
+            builder.append((char) (random.nextInt(transition.maxes[range] - min + 1) + min));
+            state = transition.dest;
+        } while (true);
+        return builder.toString();
+    }
+
+    /**
+     * @return the transitions out of the state with at least one character with a positive weight
+     */
+    private static List<WeightedTransition> candidateTransitions(State state, GreexWeights weights) {
+        List<WeightedTransition> transitions = new ArrayList<WeightedTransition>();
+        for (Transition transition : state.getSortedTransitions(false)) {
+            List<GreexWeights.CharacterRange> ranges = new ArrayList<GreexWeights.CharacterRange>();
+            for (GreexWeights.CharacterRange range : weights.split(transition.getMin(), transition.getMax())) {
+                if (range.weight > 0) {
+                    ranges.add(range);
+                }
+            }
+            if (!ranges.isEmpty()) {
+                transitions.add(new WeightedTransition(transition.getDest(), ranges));
+            }
+        }
+        return transitions;
+    }
+
+    /**
+     * @return the states that can reach an accepting state using only the given transitions
+     */
+    private static Set<State> liveStates(Map<State, List<WeightedTransition>> candidates) {
+        Map<State, List<State>> sources = new HashMap<State, List<State>>();
+        Deque<State> queue = new ArrayDeque<State>();
+        Set<State> live = new HashSet<State>();
+        for (Map.Entry<State, List<WeightedTransition>> entry : candidates.entrySet()) {
+            for (WeightedTransition transition : entry.getValue()) {
+                List<State> destSources = sources.get(transition.destState);
+                if (destSources == null) {
+                    destSources = new ArrayList<State>();
+                    sources.put(transition.destState, destSources);
+                }
+                destSources.add(entry.getKey());
+            }
+            if (entry.getKey().isAccept()) {
+                live.add(entry.getKey());
+                queue.add(entry.getKey());
+            }
+        }
+        while (!queue.isEmpty()) {
+            List<State> destSources = sources.get(queue.poll());
+            if (destSources == null) {
+                continue;
+            }
+            for (State source : destSources) {
+                if (live.add(source)) {
+                    queue.add(source);
+                }
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Keeps the candidate transitions into live states and computes their weights.
+     */
+    private static void link(WeightedState weightedState,
+                             List<WeightedTransition> candidates,
+                             Map<State, WeightedState> states,
+                             GreexWeights weights) {
+        List<WeightedTransition> transitions = new ArrayList<WeightedTransition>();
+        for (WeightedTransition transition : candidates) {
+            WeightedState dest = states.get(transition.destState);
+            if (dest != null) {
+                transition.dest = dest;
+                transitions.add(transition);
+            }
+        }
+        weightedState.transitions = transitions.toArray(new WeightedTransition[transitions.size()]);
+        weightedState.transitionWeights = new double[transitions.size()];
+        for (int i = 0; i < transitions.size(); i++) {
+            double weight = weights.getTransitionWeighting() == GreexWeights.TransitionWeighting.EQUAL
+                    ? 1
+                    : transitions.get(i).weight;
+            weightedState.transitionWeights[i] = weight;
+            weightedState.totalWeight += weight;
+        }
+    }
+
+    /**
+     * @param stopProbability the stop probability, or a negative number to give stopping the
+     *                        average weight of the state's transitions
+     */
+    private static void buildOutcomes(WeightedState state, double stopProbability) {
+        int count = state.transitions.length;
+        if (count == 0) {
+            return;
+        }
+        int offset = state.accept ? 1 : 0;
+        double[] outcomeWeights = new double[count + offset];
+        System.arraycopy(state.transitionWeights, 0, outcomeWeights, offset, count);
+        if (state.accept) {
+            if (stopProbability < 0) {
+                outcomeWeights[0] = state.totalWeight / count;
+            } else if (stopProbability < 1) {
+                outcomeWeights[0] = state.totalWeight * stopProbability / (1 - stopProbability);
+            } else {
+                Arrays.fill(outcomeWeights, 0);
+                outcomeWeights[0] = 1;
+            }
+        }
+        state.outcomes = new GreexAliasTable(outcomeWeights);
+    }
+
+    /**
+     * @return the stop probability whose expected match length is closest to the target
+     */
+    private static double solveStopProbability(List<WeightedState> states, int initial, double targetMeanLength) {
+        List<int[]> components = components(states);
+        double high = 1;
+        if (expectedLengths(states, components, high)[initial] >= targetMeanLength) {
+            return high;
+        }
+        double low = MIN_STOP_PROBABILITY;
+        if (expectedLengths(states, components, low)[initial] <= targetMeanLength) {
+            return low;
+        }
+        for (int i = 0; i < SEARCH_ITERATIONS; i++) {
+            double middle = (low + high) / 2;
+            if (expectedLengths(states, components, middle)[initial] > targetMeanLength) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * Solves {@code E[s] = sum of P(t) * (1 + E[dest(t)])} over the transitions {@code t} out of
+     * each state {@code s}. Components are solved in the order they are given, which must be
+     * reverse topological order, so the expected lengths of states outside a component are
+     * already known when it is solved.
+     *
+     * @return the expected number of characters generated from each state, by index
+     */
+    private static double[] expectedLengths(List<WeightedState> states, List<int[]> components, double stopProbability) {
+        double[] expected = new double[states.size()];
+        int[] position = new int[states.size()];
+        Arrays.fill(position, -1);
+        for (int[] component : components) {
+            int size = component.length;
+            for (int i = 0; i < size; i++) {
+                position[component[i]] = i;
+            }
+            // Solves (I - P) E = b, where P only has the transitions within the component
+            double[][] matrix = new double[size][size + 1];
+            for (int i = 0; i < size; i++) {
+                WeightedState state = states.get(component[i]);
+                matrix[i][i] = 1;
+                if (state.transitions.length == 0) {
+                    continue;
+                }
+                double scale = (state.accept ? 1 - stopProbability : 1) / state.totalWeight;
+                for (int t = 0; t < state.transitions.length; t++) {
+                    double probability = state.transitionWeights[t] * scale;
+                    int dest = state.transitions[t].dest.index;
+                    matrix[i][size] += probability;
+                    if (position[dest] >= 0) {
+                        matrix[i][position[dest]] -= probability;
+                    } else {
+                        matrix[i][size] += probability * expected[dest];
+                    }
+                }
+            }
+            solve(matrix);
+            for (int i = 0; i < size; i++) {
+                expected[component[i]] = matrix[i][size];
+                position[component[i]] = -1;
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Solves the augmented matrix in place with Gaussian elimination with partial pivoting,
+     * leaving the solution in the last column.
+     */
+    private static void solve(double[][] matrix) {
+        int size = matrix.length;
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < size; row++) {
+                if (Math.abs(matrix[row][column]) > Math.abs(matrix[pivot][column])) {
+                    pivot = row;
+                }
+            }
+            double[] swap = matrix[column];
+            matrix[column] = matrix[pivot];
+            matrix[pivot] = swap;
+            for (int row = 0; row < size; row++) {
+                if (row == column || matrix[row][column] == 0) {
+                    continue;
+                }
+                double factor = matrix[row][column] / matrix[column][column];
+                for (int k = column; k <= size; k++) {
+                    matrix[row][k] -= factor * matrix[column][k];
+                }
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            matrix[row][size] /= matrix[row][row];
+            matrix[row][row] = 1;
+        }
+    }
+
+    /**
+     * Finds the strongly connected components of the compiled states with Tarjan's algorithm,
+     * which returns them in reverse topological order.
+     *
+     * @return the indexes of the states in each component
+     */
+    private static List<int[]> components(List<WeightedState> states) {
+        int size = states.size();
+        int[] index = new int[size];
+        int[] low = new int[size];
+        boolean[] onStack = new boolean[size];
+        Arrays.fill(index, -1);
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        List<int[]> components = new ArrayList<int[]>();
+        int counter = 0;
+        for (int root = 0; root < size; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            // Each frame is a state and the next of its transitions to visit
+            Deque<int[]> work = new ArrayDeque<int[]>();
+            index[root] = low[root] = counter++;
+            stack.push(root);
+            onStack[root] = true;
+            work.push(new int[]{root, 0});
+            while (!work.isEmpty()) {
+                int[] frame = work.peek();
+                int v = frame[0];
+                WeightedTransition[] transitions = states.get(v).transitions;
+                if (frame[1] < transitions.length) {
+                    int w = transitions[frame[1]++].dest.index;
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        stack.push(w);
+                        onStack[w] = true;
+                        work.push(new int[]{w, 0});
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                work.pop();
+                if (!work.isEmpty()) {
+                    int u = work.peek()[0];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+                if (low[v] == index[v]) {
+                    List<Integer> component = new ArrayList<Integer>();
+                    int w;
+                    do {
+                        w = stack.pop();
+                        onStack[w] = false;
+                        component.add(w);
+                    } while (w != v);
+                    int[] members = new int[component.size()];
+                    for (int i = 0; i < members.length; i++) {
+                        members[i] = component.get(i);
+                    }
+                    components.add(members);
+                }
+            }
+        }
+        return components;
+    }
+
+    private static class WeightedState {
+
+        final boolean accept;
+        final int index;
+        WeightedTransition[] transitions;
+        double[] transitionWeights;
+        double totalWeight;
+        GreexAliasTable outcomes;
+
+        WeightedState(boolean accept, int index) {
+            this.accept = accept;
+            this.index = index;
+        }
+    }
+
+    private static class WeightedTransition {
+
+        final State destState;
+        final char[] mins;
+        final char[] maxes;
+        final double weight;
+        final GreexAliasTable ranges;
+        WeightedState dest;
+
+        WeightedTransition(State destState, List<GreexWeights.CharacterRange> ranges) {
+            this.destState = destState;
+            this.mins = new char[ranges.size()];
+            this.maxes = new char[ranges.size()];
+            double[] weights = new double[ranges.size()];
+            double weight = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                GreexWeights.CharacterRange range = ranges.get(i);
+                mins[i] = range.min;
+                maxes[i] = range.max;
+                weights[i] = range.weight * (range.max - range.min + 1);
+                weight += weights[i];
+            }
+            this.weight = weight;
+            this.ranges = new GreexAliasTable(weights);
+        }
+    }
+}
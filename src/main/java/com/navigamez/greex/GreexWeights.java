@@ -0,0 +1,229 @@
+package com.navigamez.greex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Weights that control the random walk used by
+ * {@link GreexGenerator#withWeights(GreexWeights) weighted generators}.
+ * <p>
+ * Without weights, a generator treats "stop" and each transition out of a state as equally likely,
+ * and picks characters uniformly within a transition. With weights, every state gets a
+ * precompiled alias table, so each step of the walk is still a constant-time pick and no generated
+ * matches are thrown away. Transitions that can't lead to a match without using characters with a
+ * weight of 0 are never taken. The following can be controlled:
+ * <ul>
+ * <li><b>Character weights</b> set the relative weight of each character in a character class.
+ * Characters default to a weight of 1, and a weight of 0 excludes a character. When ranges
+ * overlap, the range that was added last wins.</li>
+ * <li><b>Transition weighting</b> controls how a transition's weight is derived.
+ * {@link TransitionWeighting#CHARACTERS} (the default) weighs a transition by the sum of the
+ * weights of its characters, so every character is picked in proportion to its weight.
+ * {@link TransitionWeighting#EQUAL} weighs every transition with a positive weight the same, like
+ * an unweighted generator does, and character weights only apply within a transition.</li>
+ * <li><b>Target mean length</b> sets the mean length of the generated matches. The weights are
+ * compiled into a chain of states, the expected length of a match is computed exactly for that
+ * chain, and the stop probability (see below) that gives the target is found by a binary search.
+ * If the target is shorter than the shortest mean length the weights allow, the stop probability
+ * is 1. If it's longer than the longest, the stop probability is as small as it can be. Only
+ * accepting states that have a way to continue are affected, so for a regular expression like
+ * {@code a|bcd}, the target has no effect.</li>
+ * <li><b>Stop probability</b> is the probability of stopping at each accepting state that has a
+ * way to continue. Each time the walk reaches such a state, it stops with this probability, so the
+ * number of times it continues past an accepting state follows a geometric distribution with a
+ * mean of {@code (1 - p) / p}. Each continuation adds as many characters as it takes to reach the
+ * next accepting state. For example, with a stop probability of {@code 0.2}, {@code [a-z]*}
+ * generates matches with a mean length of 4, but {@code (hello)*} generates matches with a mean
+ * length of 20. Prefer a target mean length unless you need this lower-level control.</li>
+ * </ul>
+ * <p>
+ * Without a target mean length or a stop probability, stopping at an accepting state has the
+ * average weight of the state's transitions. Setting a target mean length or a stop probability
+ * replaces the other one.
+ * <p>
+ * For example, to generate lowercase words averaging 5 characters where vowels are three times as
+ * likely as other letters:
+ * <p>
+ * <code>
+ * GreexWeights weights = new GreexWeights()<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.characterWeight('a', 3).characterWeight('e', 3).characterWeight('i', 3)<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.characterWeight('o', 3).characterWeight('u', 3)<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;.targetMeanLength(5);<br>
+ * GreexGenerator generator = new GreexGenerator("[a-z]+").withWeights(weights);
+ * </code>
+ * <p>
+ * Weights are copied when a generator is created from them, so later changes to an instance of
+ * this class don't affect existing generators. This class is not thread safe.
+ *
+ * @author Brian Saltz
+ * @since 1.2
+ */
+public class GreexWeights {
+
+    /**
+     * How the weight of a transition between two states is derived.
+     */
+    public enum TransitionWeighting {
+        /**
+         * Every transition with at least one character with a positive weight has the same weight.
+         */
+        EQUAL,
+        /**
+         * A transition's weight is the sum of the weights of its characters.
+         */
+        CHARACTERS
+    }
+
+    private final List<CharacterRange> characterRanges = new ArrayList<CharacterRange>();
+    private TransitionWeighting transitionWeighting = TransitionWeighting.CHARACTERS;
+    private double stopProbability = -1;
+    private double targetMeanLength = -1;
+
+    /**
+     * Sets the weight of a single character.
+     *
+     * @param c the character
+     * @param weight the non-negative weight of the character
+     * @return this instance
+     */
+    public GreexWeights characterWeight(char c, double weight) {
+        return characterWeight(c, c, weight);
+    }
+
+    /**
+     * Sets the weight of every character in the given inclusive range.
+     *
+     * @param min the first character in the range
+     * @param max the last character in the range
+     * @param weight the non-negative weight of each character in the range
+     * @return this instance
+     */
+    public GreexWeights characterWeight(char min, char max, double weight) {
+        if (min > max) {
+            throw new IllegalArgumentException("min cannot be greater than max");
+        }
+        if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("weight must be a non-negative number");
+        }
+        characterRanges.add(new CharacterRange(min, max, weight));
+        return this;
+    }
+
+    /**
+     * Sets how the weight of a transition is derived. Defaults to
+     * {@link TransitionWeighting#CHARACTERS}.
+     *
+     * @param transitionWeighting the transition weighting
+     * @return this instance
+     */
+    public GreexWeights transitionWeighting(TransitionWeighting transitionWeighting) {
+        if (transitionWeighting == null) {
+            throw new IllegalArgumentException("transitionWeighting cannot be null");
+        }
+        this.transitionWeighting = transitionWeighting;
+        return this;
+    }
+
+    /**
+     * Sets the target mean length of the generated matches. This replaces any stop probability.
+     *
+     * @param targetMeanLength the non-negative target mean length
+     * @return this instance
+     */
+    public GreexWeights targetMeanLength(double targetMeanLength) {
+        if (targetMeanLength < 0 || Double.isNaN(targetMeanLength) || Double.isInfinite(targetMeanLength)) {
+            throw new IllegalArgumentException("targetMeanLength must be a non-negative number");
+        }
+        this.targetMeanLength = targetMeanLength;
+        this.stopProbability = -1;
+        return this;
+    }
+
+    /**
+     * Sets the probability of stopping at an accepting state that has a way to continue. A
+     * probability of 1 always stops at the first accepting state. The number of continuations
+     * past accepting states is geometric, not the number of characters, so use
+     * {@link #targetMeanLength(double)} to control the length of the matches. This replaces any
+     * target mean length.
+     *
+     * @param stopProbability the stop probability, greater than 0 and at most 1
+     * @return this instance
+     */
+    public GreexWeights stopProbability(double stopProbability) {
+        if (!(stopProbability > 0 && stopProbability <= 1)) {
+            throw new IllegalArgumentException("stopProbability must be greater than 0 and at most 1");
+        }
+        this.stopProbability = stopProbability;
+        this.targetMeanLength = -1;
+        return this;
+    }
+
+    TransitionWeighting getTransitionWeighting() {
+        return transitionWeighting;
+    }
+
+    /**
+     * @return the stop probability, or a negative number if there isn't one
+     */
+    double getStopProbability() {
+        return stopProbability;
+    }
+
+    /**
+     * @return the target mean length, or a negative number if there isn't one
+     */
+    double getTargetMeanLength() {
+        return targetMeanLength;
+    }
+
+    /**
+     * Splits the given inclusive range into sub-ranges where every character has the same weight.
+     *
+     * @return the sub-ranges, in order
+     */
+    List<CharacterRange> split(char min, char max) {
+        TreeSet<Integer> starts = new TreeSet<Integer>();
+        starts.add((int) min);
+        for (CharacterRange range : characterRanges) {
+            if (range.min > min && range.min <= max) {
+                starts.add((int) range.min);
+            }
+            if (range.max >= min && range.max < max) {
+                starts.add(range.max + 1);
+            }
+        }
+        List<CharacterRange> ranges = new ArrayList<CharacterRange>(starts.size());
+        Integer start = starts.first();
+        while (start != null) {
+            Integer next = starts.higher(start);
+            char end = (char) (next == null ? max : next - 1);
+            ranges.add(new CharacterRange((char) (int) start, end, weightOf((char) (int) start)));
+            start = next;
+        }
+        return ranges;
+    }
+
+    private double weightOf(char c) {
+        for (int i = characterRanges.size() - 1; i >= 0; i--) {
+            CharacterRange range = characterRanges.get(i);
+            if (range.min <= c && c <= range.max) {
+                return range.weight;
+            }
+        }
+        return 1;
+    }
+
+    static class CharacterRange {
+
+        final char min;
+        final char max;
+        final double weight;
+
+        CharacterRange(char min, char max, double weight) {
+            this.min = min;
+            this.max = max;
+            this.weight = weight;
+        }
+    }
+}
@@ -3,10 +3,12 @@ package com.navigamez.greex;
 import org.junit.Test;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class GreexGeneratorTest {
@@ -234,6 +236,365 @@ public class GreexGeneratorTest {
         }
     }
 
+    @Test
+    public void generateRandomAsync_1() throws Exception {
+        String regex = "a*([bd])+c?";
+        Pattern pattern = Pattern.compile(regex);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            GreexGenerator generator = new GreexGenerator(regex, executor, 7);
+            int count = 50;
+            // Chunked generation uses the same sequence of random numbers as synchronous generation
+            List<String> s1s = generator.generateRandomAsync(1989465435487498L, count).get();
+            List<String> s2s = generator.generateRandom(1989465435487498L, count);
+            assertEquals(s2s, s1s);
+            assertEquals(count, new HashSet<String>(s1s).size());
+            List<String> s3s = generator.generateRandomAsync(1989465435487498L, count, false).get();
+            List<String> s4s = generator.generateRandom(1989465435487498L, count, false);
+            assertEquals(s4s, s3s);
+            for (String s : s3s) {
+                assertTrue(pattern.matcher(s).matches());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void generateRandomAsync_2() throws Exception {
+        // Uses regex for which it is impossible to generate 50 matches
+        GreexGenerator generator = new GreexGenerator("a");
+        Future<List<String>> future = generator.generateRandomAsync(1989465435487498L, 50);
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("expected a timeout");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(true));
+    }
+
+    @Test
+    public void generateRandomAsync_3() throws Exception {
+        // Uses regex for which it is impossible to generate 50 matches
+        GreexGenerator generator = new GreexGenerator("a|b");
+        long start = System.currentTimeMillis();
+        List<String> s1s = generator.generateRandomAsync(1989465435487498L, 50, true, 500, TimeUnit.MILLISECONDS).get();
+        long end = System.currentTimeMillis();
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(new TreeSet<String>(s1s)));
+        assertEquals(2, s1s.size());
+        assertTrue(end - start >= 500);
+        // The timeout doesn't change results that finish in time
+        List<String> s2s = generator.generateRandomAsync(1989465435487498L, 2, true, 10, TimeUnit.SECONDS).get();
+        assertEquals(generator.generateRandom(1989465435487498L, 2), s2s);
+    }
+
+    @Test
+    public void generateRandomAsync_4() throws Exception {
+        String regex = "a*([bd])+c?";
+        final int chunkSize = 7;
+        final List<String> matches = new ArrayList<String>();
+        final AtomicInteger largestChunk = new AtomicInteger();
+        GreexSink sink = new GreexSink() {
+            @Override
+            public void accept(List<String> chunk) {
+                largestChunk.set(Math.max(largestChunk.get(), chunk.size()));
+                matches.addAll(chunk);
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            GreexGenerator generator = new GreexGenerator(regex, executor, chunkSize);
+            assertEquals(Integer.valueOf(50), generator.generateRandomAsync(1989465435487498L, 50, sink).get());
+            assertEquals(generator.generateRandom(1989465435487498L, 50, false), matches);
+            assertEquals(chunkSize, largestChunk.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void generateRandomAsync_5() {
+        GreexGenerator generator = new GreexGenerator("a|b");
+        // Negative counts are rejected the same way synchronously and asynchronously
+        try {
+            generator.generateRandom(1989465435487498L, -1, false);
+            throw new AssertionError("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            generator.generateRandomAsync(1989465435487498L, -1, false);
+            throw new AssertionError("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void generateAllAsync_1() throws Exception {
+        String regex = "a*([bd])+c?";
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            GreexGenerator generator = new GreexGenerator(regex, executor, 100);
+            Future<Set<String>> all = generator.generateAllAsync(Integer.MAX_VALUE, 10);
+            Future<Set<String>> limited = generator.generateAllAsync(1000, 10);
+            assertEquals(generator.generateAll(10), all.get());
+            assertEquals(generator.generateAllLimited(1000, 10), limited.get());
+            assertEquals(6098, all.get().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void generateAllAsync_2() throws Exception {
+        String regex = "(white|black)|((light|dark) )?(red|green|blue|gray)";
+        GreexGenerator generator = new GreexGenerator(regex);
+        assertEquals(generator.generateAll(), generator.generateAllAsync(Integer.MAX_VALUE, Integer.MAX_VALUE).get());
+        assertEquals(generator.generateAllLimited(5), generator.generateAllAsync(5, Integer.MAX_VALUE).get());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void generateAllAsync_3() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.shutdown();
+            new GreexGenerator("abc", executor).generateAllAsync(1, 1).get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void generateAllAsync_4() throws Exception {
+        // Every match is longer than the max length, so the whole search finds nothing
+        final AtomicInteger chunks = new AtomicInteger();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Executor countingExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    chunks.incrementAndGet();
+                    executor.execute(command);
+                }
+            };
+            GreexGenerator generator = new GreexGenerator("[a-z]{4}", countingExecutor, 10);
+            Set<String> results = generator.generateAllAsync(Integer.MAX_VALUE, 3).get();
+            assertTrue(results.isEmpty());
+            // 26 + 26^2 + 26^3 states are visited, and each chunk visits at most 10 of them
+            assertTrue(chunks.get() > (26 + 26 * 26 + 26 * 26 * 26) / 10);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void generateRandomWeighted_1() {
+        // Extra characters are geometric with a mean of (1 - p) / p = 4 after the required one
+        String regex = "[a-z]+";
+        GreexGenerator generator = new GreexGenerator(regex).withWeights(new GreexWeights().stopProbability(0.2));
+        Random random = new Random(879870238957089L);
+        int generations = 20000;
+        long totalLength = 0;
+        for (int i = 0; i < generations; i++) {
+            totalLength += generator.generateRandom(random).length();
+        }
+        double meanLength = (double) totalLength / generations;
+        System.out.println("Mean length: " + meanLength);
+        assertEquals(5, meanLength, 0.2);
+    }
+
+    @Test
+    public void generateRandomWeighted_7() {
+        // Each continuation past the accepting state adds 5 characters, so the mean is 5 * 4
+        GreexGenerator generator = new GreexGenerator("(hello)*").withWeights(new GreexWeights().stopProbability(0.2));
+        assertEquals(20, meanLength(generator, 20000), 0.75);
+    }
+
+    @Test
+    public void generateRandomWeighted_8() {
+        GreexWeights weights = new GreexWeights().targetMeanLength(5);
+        assertEquals(5, meanLength(new GreexGenerator("[a-z]+").withWeights(weights), 20000), 0.2);
+        assertEquals(5, meanLength(new GreexGenerator("[a-z]*").withWeights(weights), 20000), 0.2);
+        weights.targetMeanLength(20);
+        assertEquals(20, meanLength(new GreexGenerator("(hello)*").withWeights(weights), 20000), 0.75);
+        weights.targetMeanLength(7);
+        assertEquals(7, meanLength(new GreexGenerator("x(ab)*|y[0-9]{2,}").withWeights(weights), 20000), 0.3);
+    }
+
+    @Test
+    public void generateRandomWeighted_9() {
+        // Targets outside of what the regular expression allows get as close as possible
+        GreexGenerator shortest = new GreexGenerator("abc(de)*").withWeights(new GreexWeights().targetMeanLength(1));
+        Random random = new Random(879870238957089L);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("abc", shortest.generateRandom(random));
+        }
+        // There is nowhere to stop early or continue, so the mean is the same as without a target
+        GreexGenerator finite = new GreexGenerator("a|bcd").withWeights(new GreexWeights().targetMeanLength(10));
+        assertEquals(2, meanLength(finite, 20000), 0.1);
+    }
+
+    private static double meanLength(GreexGenerator generator, int generations) {
+        Random random = new Random(879870238957089L);
+        long totalLength = 0;
+        for (int i = 0; i < generations; i++) {
+            totalLength += generator.generateRandom(random).length();
+        }
+        return (double) totalLength / generations;
+    }
+
+    @Test
+    public void generateRandomWeighted_2() {
+        String regex = "[a-c0-9]{100}";
+        Pattern pattern = Pattern.compile(regex);
+        GreexWeights weights = new GreexWeights()
+                .characterWeight('0', '9', 0)
+                .characterWeight('a', 'c', 1)
+                .characterWeight('c', 8);
+        GreexGenerator generator = new GreexGenerator(regex).withWeights(weights);
+        Random random = new Random(879870238957089L);
+        int[] counts = new int[3];
+        for (int i = 0; i < 100; i++) {
+            String s = generator.generateRandom(random);
+            assertTrue(pattern.matcher(s).matches());
+            for (char c : s.toCharArray()) {
+                counts[c - 'a']++;
+            }
+        }
+        // Expected ratio is 1:1:8, and digits are never generated
+        assertEquals(10000, counts[0] + counts[1] + counts[2]);
+        assertEquals(8000, counts[2], 200);
+        assertEquals(1000, counts[0], 150);
+    }
+
+    @Test
+    public void generateRandomWeighted_3() {
+        String regex = "(white|black)|((light|dark) )?(red|green|blue|gray)";
+        Pattern pattern = Pattern.compile(regex);
+        GreexWeights weights = new GreexWeights().transitionWeighting(GreexWeights.TransitionWeighting.EQUAL);
+        GreexGenerator generator = new GreexGenerator(regex).withWeights(weights);
+        List<String> s1s = generator.generateRandom(1989465435487498L, 14);
+        List<String> s2s = generator.generateRandom(1989465435487498L, 14);
+        assertEquals(s1s, s2s);
+        assertEquals(14, new HashSet<String>(s1s).size());
+        for (String s : s1s) {
+            assertTrue(pattern.matcher(s).matches());
+        }
+    }
+
+    @Test
+    public void generateRandomWeighted_4() throws Exception {
+        String regex = "a*([bd])+c?";
+        // Stops as soon as a match is possible
+        Pattern pattern = Pattern.compile("a*[bd]");
+        GreexGenerator generator = new GreexGenerator(regex).withWeights(new GreexWeights().stopProbability(1));
+        List<String> s1s = generator.generateRandomAsync(1989465435487498L, 100, false).get();
+        assertEquals(generator.generateRandom(1989465435487498L, 100, false), s1s);
+        for (String s : s1s) {
+            assertTrue(pattern.matcher(s).matches());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void generateRandomWeighted_5() {
+        new GreexGenerator("ab").withWeights(new GreexWeights().characterWeight('b', 0));
+    }
+
+    @Test
+    public void generateRandomWeighted_6() {
+        // The "a" branch can't be completed without digits, so it is never taken
+        GreexWeights weights = new GreexWeights().characterWeight('0', '9', 0);
+        GreexGenerator generator = new GreexGenerator("a[0-9]|b").withWeights(weights);
+        Random random = new Random(879870238957089L);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("b", generator.generateRandom(random));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weights_1() {
+        new GreexWeights().characterWeight('a', -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weights_2() {
+        new GreexWeights().stopProbability(Double.NaN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weights_3() {
+        new GreexWeights().stopProbability(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weights_4() {
+        new GreexWeights().targetMeanLength(-1);
+    }
+
+    @Test
+    public void generateAllAsync_5() throws Exception {
+        String regex = "a*([bd])+c?";
+        final int chunkSize = 100;
+        final List<String> matches = new ArrayList<String>();
+        final AtomicInteger largestChunk = new AtomicInteger();
+        GreexSink sink = new GreexSink() {
+            @Override
+            public void accept(List<String> chunk) {
+                largestChunk.set(Math.max(largestChunk.get(), chunk.size()));
+                matches.addAll(chunk);
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            GreexGenerator generator = new GreexGenerator(regex, executor, chunkSize);
+            assertEquals(Integer.valueOf(6098), generator.generateAllAsync(Integer.MAX_VALUE, 10, sink).get());
+            assertEquals(6098, matches.size());
+            assertEquals(generator.generateAll(10), new HashSet<String>(matches));
+            assertTrue(largestChunk.get() <= chunkSize);
+            matches.clear();
+            assertEquals(Integer.valueOf(1000), generator.generateAllAsync(1000, 10, sink).get());
+            assertEquals(generator.generateAllLimited(1000, 10), new HashSet<String>(matches));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void generateAllAsync_6() throws Exception {
+        GreexSink sink = new GreexSink() {
+            @Override
+            public void accept(List<String> chunk) {
+                throw new IllegalStateException("sink failed");
+            }
+        };
+        try {
+            new GreexGenerator("a|b").generateAllAsync(Integer.MAX_VALUE, Integer.MAX_VALUE, sink).get();
+            throw new AssertionError("expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertEquals("sink failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_2() {
+        new GreexGenerator("abc", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_3() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new GreexGenerator("abc", executor, 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void construct() {
         new GreexGenerator(null);